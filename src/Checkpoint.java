@@ -0,0 +1,287 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import src.MDPState;
+import src.Problem;
+
+/**
+ * Periodic checkpoint of a solve (values, policy, iteration and residual).
+ *
+ * The file is memory-mapped and holds two slots that are written alternately,
+ * so a crash in the middle of a write always leaves the previous slot intact.
+ * The solve loop only copies the current values into a snapshot; the writing
+ * itself happens in a background thread. Each slot carries the CRC32 of the
+ * source '.net' file and is ignored if that file has changed.
+ */
+public class Checkpoint {
+    static final String folder = "checkpoints";
+    static final String file_format = ".ckpt";
+    static final long interval = 1000; // ms between two checkpoints
+
+    public static final int VALUE_ITERATION = 1;
+    public static final int POLICY_ITERATION = 2;
+
+    static final int MAGIC = 0x4d445043; // "MDPC"
+    // magic, sequence, algorithm, iteration, residual, source checksum, converged, number of states
+    static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 8 + 8 + 4 + 4;
+    // x, y, value, index of the best action
+    static final int ENTRY_SIZE = 4 + 4 + 8 + 4;
+
+    public Problem problem;
+    public int algorithm;
+    public long sourceChecksum;
+
+    // Filled by restore()
+    public boolean restored = false;
+    public int iterations;
+    public double residual;
+    public boolean converged;
+
+    private MappedByteBuffer map;
+    private RandomAccessFile file;
+    private int slotSize;
+    private long sequence = 0;
+    private long lastSave;
+    private int lastSlot = -1; // only touched by the writer thread once the solve starts
+
+    private ExecutorService writer;
+    private AtomicReference<Snapshot> pending = new AtomicReference<>();
+    private AtomicBoolean writing = new AtomicBoolean(false);
+
+    private static class Snapshot {
+        long sequence;
+        int iterations;
+        double residual;
+        boolean converged;
+        int[] x;
+        int[] y;
+        double[] values;
+        int[] actions;
+    }
+
+    /**
+     * Opens (or creates) the checkpoint file. With resume the latest valid slot
+     * is loaded into the problem, otherwise both slots are invalidated so that
+     * an older run can never be mistaken for this one.
+     */
+    public static Checkpoint open( String sourcePath, String name, int algorithm, Problem problem, boolean resume ) throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.problem = problem;
+        checkpoint.algorithm = algorithm;
+
+        CRC32 crc = new CRC32();
+        crc.update( Files.readAllBytes( new File(sourcePath).toPath() ) );
+        checkpoint.sourceChecksum = crc.getValue();
+
+        File dir = new File( new File("").getAbsolutePath() + "/" + folder );
+        dir.mkdirs();
+
+        checkpoint.slotSize = HEADER_SIZE + problem.states.length * ENTRY_SIZE + 8;
+        long fileSize = 2L * checkpoint.slotSize;
+
+        checkpoint.file = new RandomAccessFile( new File(dir, name + file_format), "rw" );
+        if ( checkpoint.file.length() != fileSize ) {
+            checkpoint.file.setLength( 0 );
+            checkpoint.file.setLength( fileSize );
+        }
+        checkpoint.map = checkpoint.file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, fileSize );
+
+        checkpoint.writer = Executors.newSingleThreadExecutor( r -> {
+            Thread thread = new Thread( r, "checkpoint-writer" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        checkpoint.lastSave = System.currentTimeMillis();
+
+        if ( !resume || !checkpoint.restore() ) {
+            checkpoint.clear();
+        }
+
+        return checkpoint;
+    }
+
+    private void clear() {
+        ByteBuffer view = map.duplicate();
+        view.position( 0 );
+        view.put( new byte[2 * slotSize] );
+        map.force();
+    }
+
+    /**
+     * Loads the latest valid slot into the states of the problem. Returns false
+     * (and leaves the problem untouched) if there is no valid checkpoint.
+     */
+    private boolean restore() {
+        ByteBuffer slot = null;
+        long latest = -1;
+        int latestSlot = -1;
+
+        for ( int i = 0; i < 2; i++ ) {
+            ByteBuffer candidate = readSlot( i );
+            if ( candidate != null && candidate.getLong( 4 ) > latest ) {
+                latest = candidate.getLong( 4 );
+                slot = candidate;
+                latestSlot = i;
+            }
+        }
+
+        if ( slot == null ) {
+            System.out.println("No valid checkpoint found, starting from scratch.");
+            return false;
+        }
+
+        Map<String, MDPState> states = new HashMap<>();
+        for ( MDPState state : problem.states ) {
+            states.put( state.toRobotAtString(), state );
+        }
+
+        slot.position( 4 + 8 + 4 );
+        iterations = slot.getInt();
+        residual = slot.getDouble();
+        slot.getLong();
+        converged = slot.getInt() != 0;
+        int n = slot.getInt();
+
+        for ( int i = 0; i < n; i++ ) {
+            int x = slot.getInt();
+            int y = slot.getInt();
+            double value = slot.getDouble();
+            int action = slot.getInt();
+
+            MDPState state = states.get( "robot-at-x" + x + "y" + y );
+            // Older values are never read again, only the index of the last one matters
+            state.valuesFunctions = new ArrayList<>( Collections.nCopies( iterations + 1, value ) );
+            state.bestAction = action >= 0 ? state.actions.get( action ) : null;
+        }
+
+        sequence = latest;
+        lastSlot = latestSlot;
+        restored = true;
+        System.out.println("Resuming from checkpoint: iteration " + iterations + ", residual " + residual);
+        return true;
+    }
+
+    private ByteBuffer readSlot( int index ) {
+        byte[] bytes = new byte[slotSize];
+        ByteBuffer view = map.duplicate();
+        view.position( index * slotSize );
+        view.get( bytes );
+
+        ByteBuffer slot = ByteBuffer.wrap( bytes );
+        if ( slot.getInt( 0 ) != MAGIC ) return null;
+        if ( slot.getInt( 4 + 8 ) != algorithm ) return null;
+        if ( slot.getLong( 4 + 8 + 4 + 4 + 8 ) != sourceChecksum ) return null;
+        if ( slot.getInt( HEADER_SIZE - 4 ) != problem.states.length ) return null;
+
+        CRC32 crc = new CRC32();
+        crc.update( bytes, 0, slotSize - 8 );
+        if ( slot.getLong( slotSize - 8 ) != crc.getValue() ) return null;
+
+        return slot;
+    }
+
+    /**
+     * Called by the solver at the end of every iteration. Takes a snapshot at
+     * most once per interval (always when converged) and hands it to the
+     * writer thread without waiting.
+     */
+    public void save( int iterations, double residual, boolean converged ) {
+        long now = System.currentTimeMillis();
+        if ( !converged && now - lastSave < interval ) return;
+        lastSave = now;
+
+        int n = problem.states.length;
+        Snapshot snapshot = new Snapshot();
+        snapshot.sequence = ++sequence;
+        snapshot.iterations = iterations;
+        snapshot.residual = residual;
+        snapshot.converged = converged;
+        snapshot.x = new int[n];
+        snapshot.y = new int[n];
+        snapshot.values = new double[n];
+        snapshot.actions = new int[n];
+
+        for ( int i = 0; i < n; i++ ) {
+            MDPState state = problem.states[i];
+            snapshot.x[i] = state.x;
+            snapshot.y[i] = state.y;
+            snapshot.values[i] = state.valuesFunctions.get( state.valuesFunctions.size() - 1 );
+            snapshot.actions[i] = state.bestAction != null ? state.actions.indexOf( state.bestAction ) : -1;
+        }
+
+        // If the writer is still busy the older pending snapshot is simply replaced
+        pending.set( snapshot );
+        if ( writing.compareAndSet( false, true ) ) {
+            writer.execute( this::drain );
+        }
+    }
+
+    private void drain() {
+        do {
+            Snapshot snapshot;
+            while ( ( snapshot = pending.getAndSet( null ) ) != null ) {
+                write( snapshot );
+            }
+            writing.set( false );
+        } while ( pending.get() != null && writing.compareAndSet( false, true ) );
+    }
+
+    private void write( Snapshot snapshot ) {
+        int n = snapshot.values.length;
+        ByteBuffer slot = ByteBuffer.allocate( slotSize );
+
+        slot.putInt( MAGIC );
+        slot.putLong( snapshot.sequence );
+        slot.putInt( algorithm );
+        slot.putInt( snapshot.iterations );
+        slot.putDouble( snapshot.residual );
+        slot.putLong( sourceChecksum );
+        slot.putInt( snapshot.converged ? 1 : 0 );
+        slot.putInt( n );
+
+        for ( int i = 0; i < n; i++ ) {
+            slot.putInt( snapshot.x[i] );
+            slot.putInt( snapshot.y[i] );
+            slot.putDouble( snapshot.values[i] );
+            slot.putInt( snapshot.actions[i] );
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update( slot.array(), 0, slotSize - 8 );
+        slot.putLong( crc.getValue() );
+
+        // Never overwrite the slot holding the newest complete checkpoint
+        int index = lastSlot == 0 ? 1 : 0;
+        ByteBuffer view = map.duplicate();
+        view.position( index * slotSize );
+        view.put( slot.array() );
+        map.force();
+        lastSlot = index;
+    }
+
+    /**
+     * Waits for the pending snapshot (if any) to be written and releases the file.
+     */
+    public void close() throws IOException, InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination( 1, TimeUnit.MINUTES );
+        file.close();
+    }
+}
@@ -11,6 +11,7 @@ import java.io.Writer;
 
 import java.security.KeyStore.Entry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -18,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.AbstractMap.SimpleEntry;
 
+import src.Checkpoint;
 import src.MDPAction;
 import src.MDPState;
 import src.PD;
@@ -31,13 +33,14 @@ public class Main {
     static final String randomGoalInitialState = "RandomGoalInitialState";
     static final String example = "RunningExample";
     
-    // Program must be run from top level folder (tpia-ep2-mdp) with command: java src/Main [-f | -r | -ex] [-vi | -pi] [1-10] [-p]
+    // Program must be run from top level folder (tpia-ep2-mdp) with command: java src/Main [-f | -r | -ex] [-vi | -pi] [1-10] [-p] [-resume]
     public static void main( String[] args ) throws Exception, java.io.IOException {
         /**
          * args 0 -> type of file to use
          * args 1 -> type of algorithm
          * args 2 -> if is not example, the navigation_number
          * args 3 -> print grid
+         * -resume (anywhere) -> continue from the latest valid checkpoint
          * 
          * Types of files
          * -f -> FixedGoalInitialState
@@ -52,12 +55,19 @@ public class Main {
          * java src/Main -ex -vi
          * java src/Main -f -pi 1
          * java src/Main -f -pi 1 -p
+         * java src/Main -f -vi 4 -resume
          */
 
         FileReader file;
         BufferedReader br;
         Problem problem;
         String jsonString = "";
+        String sourcePath;
+        String checkpointName;
+
+        List<String> argsList = new ArrayList<>( Arrays.asList(args) );
+        boolean resume = argsList.remove("-resume");
+        args = argsList.toArray( new String[argsList.size()] );
 
         String mode = args[0].trim();
         switch( mode ) {
@@ -74,6 +84,8 @@ public class Main {
                 ).readLine();
                 problem = Problem.createProblem(br);
                 file.close();
+                sourcePath = createFilePath(args[2], fixedGoalInitialState, file_format);
+                checkpointName = fixedGoalInitialState + "_" + file_prefix + args[2] + file_format;
                 break;
             case "-r":
                 file = getFileReader(args[2], randomGoalInitialState);
@@ -88,12 +100,16 @@ public class Main {
                 ).readLine();
                 problem = Problem.createProblem(br);
                 file.close();
+                sourcePath = createFilePath(args[2], randomGoalInitialState, file_format);
+                checkpointName = randomGoalInitialState + "_" + file_prefix + args[2] + file_format;
                 break;
             case "-ex":
                 file = getFileReaderForExample(example);
                 br = new BufferedReader(file);
                 problem = Problem.createProblem(br);
                 file.close();
+                sourcePath = getAbsolutePath() + "/files/" + example + "/example" + file_format;
+                checkpointName = example + "_example" + file_format;
                 break;
             default:
                 throw new IllegalArgumentException("Parameter '" + mode + "' not recognized.");
@@ -101,16 +117,20 @@ public class Main {
 
         // Executa algoritmos
         String alg = args[1].trim();
+        Checkpoint checkpoint;
         switch( alg ) {
             case "-vi":
-                valueIteration( problem );
+                checkpoint = Checkpoint.open( sourcePath, checkpointName + "_vi", Checkpoint.VALUE_ITERATION, problem, resume );
+                valueIteration( problem, checkpoint );
                 break;
             case "-pi":  
-                policyIteration( problem, jsonString );
+                checkpoint = Checkpoint.open( sourcePath, checkpointName + "_pi", Checkpoint.POLICY_ITERATION, problem, resume );
+                policyIteration( problem, jsonString, checkpoint );
                 break;
             default:
                 throw new IllegalArgumentException("Parameter '" + alg + "' not recognized. Choose between '-vi' or '-pi'.");
         }
+        checkpoint.close();
 
         if ( args.length == 4 ) {
             if ( args[3].equals("-p") ) {
@@ -192,16 +212,24 @@ public class Main {
         return result;
     }
 
-    public static void valueIteration( Problem problem ) {
+    public static void valueIteration( Problem problem, Checkpoint checkpoint ) {
         long initTime = System.currentTimeMillis();
 
-        for ( MDPState state : problem.states ) {
-            state.valuesFunctions.add(0.0);
-        }
         int iterations = 0;
         double minResidual = Double.MAX_VALUE;
+
+        if ( checkpoint.restored ) {
+            iterations = checkpoint.iterations;
+            minResidual = checkpoint.residual;
+        }
+        else {
+            for ( MDPState state : problem.states ) {
+                state.valuesFunctions.add(0.0);
+            }
+        }
         
-        do {
+        // minResidual starts at Double.MAX_VALUE, so only a finished checkpoint skips the loop
+        while ( minResidual > problem.epsilon ) {
             iterations++;
             double localResidual = 0;
 
@@ -225,8 +253,11 @@ public class Main {
             }
 
             minResidual = Math.min(minResidual, localResidual);
+            checkpoint.save( iterations, minResidual, false );
 
-        } while ( minResidual > problem.epsilon );
+        }
+
+        checkpoint.save( iterations, minResidual, true );
 
         long finishTime = System.currentTimeMillis();
         long diff = finishTime - initTime;
@@ -234,7 +265,7 @@ public class Main {
         System.out.println("Iterations: " + iterations);
     }
 
-    public static void evaluatePolicy( Problem problem ) {
+    public static double evaluatePolicy( Problem problem ) {
         int iterations = 0;
         double maxResidual = 0;
         
@@ -292,11 +323,60 @@ public class Main {
             ValueFunction aux = localValuesFunction.get( state );
             state.valuesFunctions.add( aux.newValue );
         }
+
+        return maxResidual;
     } 
 
-    public static void policyIteration( Problem problem, String jsonString ) {
+    public static void policyIteration( Problem problem, String jsonString, Checkpoint checkpoint ) {
         long initTime = System.currentTimeMillis();
 
+        boolean hasChanged = true;
+        int iterations = 0;
+        double residual = 0;
+
+        if ( checkpoint.restored ) {
+            iterations = checkpoint.iterations;
+            residual = checkpoint.residual;
+            hasChanged = !checkpoint.converged;
+        }
+        else {
+            initializePolicy( problem, jsonString );
+        }
+
+        while ( hasChanged ) {
+            hasChanged = false;
+            iterations++;
+            //System.out.println("Iteration: " + iterations);
+
+            residual = evaluatePolicy(problem);
+
+            for ( MDPState state : problem.states ) {
+
+                //state.printStateCoords();
+
+                if ( state.x == problem.goalState.x && state.y == problem.goalState.y ) continue;
+                Map.Entry<Double, MDPAction> result = computeValueFunctionWithBellmanBackup( state, iterations+1 );
+                
+                //System.out.println("V: " + result.getKey() + " " + result.getValue().actionName + " cost: " + result.getValue().cost);
+                if ( !state.bestAction.actionName.equals( result.getValue().actionName ) ) {
+                    hasChanged = true;
+                    state.bestAction = result.getValue();
+                }
+            }
+
+            checkpoint.save( iterations, residual, false );
+
+        }
+
+        checkpoint.save( iterations, residual, true );
+
+        long finishTime = System.currentTimeMillis();
+        long diff = finishTime - initTime;
+        System.out.println("Policy Iteration Time: " + diff + "ms");
+        System.out.println("Iterations: " + iterations);
+    }
+
+    public static void initializePolicy( Problem problem, String jsonString ) {
         jsonString = jsonString.substring( 1 );
         jsonString = jsonString.substring( 0, jsonString.length()-1 );
         
@@ -326,37 +406,6 @@ public class Main {
         for ( MDPState state : problem.states ) {
             state.valuesFunctions.add(0.0);
         }
-        
-        boolean hasChanged = true;
-        int iterations = 0;
-
-        do {
-            hasChanged = false;
-            iterations++;
-            //System.out.println("Iteration: " + iterations);
-
-            evaluatePolicy(problem);
-
-            for ( MDPState state : problem.states ) {
-
-                //state.printStateCoords();
-
-                if ( state.x == problem.goalState.x && state.y == problem.goalState.y ) continue;
-                Map.Entry<Double, MDPAction> result = computeValueFunctionWithBellmanBackup( state, iterations+1 );
-                
-                //System.out.println("V: " + result.getKey() + " " + result.getValue().actionName + " cost: " + result.getValue().cost);
-                if ( !state.bestAction.actionName.equals( result.getValue().actionName ) ) {
-                    hasChanged = true;
-                    state.bestAction = result.getValue();
-                }
-            }
-
-        } while ( hasChanged );
-
-        long finishTime = System.currentTimeMillis();
-        long diff = finishTime - initTime;
-        System.out.println("Policy Iteration Time: " + diff + "ms");
-        System.out.println("Iterations: " + iterations);
     }
 
     public static void printGrid( Problem problem ) throws UnsupportedEncodingException{